@@ -0,0 +1,242 @@
+import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Brush engine for the freehand dabs. Each dab's anti-aliased oval is rasterised once per size
+ * into an alpha mask, tinted per colour (kept in an LRU cache), and then composited straight
+ * into the int[] pixel buffer of a premultiplied layer image.
+ * Masks are shared by every engine; the tints and layer belong to one engine, so use one per thread.
+ * Dab positions are always whole pixels, so one mask per size is enough - no sub-pixel variants.
+ */
+
+public class BrushEngine {
+	private static final int MAX_TINTS = 64;						// Number of tinted stamps to keep
+	
+	private static final Map<Integer, int[]> masks = new ConcurrentHashMap<Integer, int[]>();	// Alpha coverage per size
+	private final Map<Long, int[]> tints = new LinkedHashMap<Long, int[]>(MAX_TINTS, 0.75f, true)
+	{
+		private static final long serialVersionUID = 1L;
+		
+		protected boolean removeEldestEntry(Map.Entry<Long, int[]> eldest)
+		{
+			return size() > MAX_TINTS;
+		}
+	};
+	private BufferedImage layer;
+	private int[] pixels;
+	private int layerWidth, layerHeight;
+	private int[] lastStamp;										// Consecutive dabs are usually the same size and colour
+	private int lastSize, lastArgb;
+	
+	// Stamps are in user-space pixels, so they only match fillOval when the Graphics isn't scaled or rotated
+	public static boolean canComposite(Graphics gfx)
+	{
+		AffineTransform transform = ((Graphics2D)gfx).getTransform();
+		return (transform.getType() & ~AffineTransform.TYPE_TRANSLATION) == 0
+			&& transform.getTranslateX() == Math.rint(transform.getTranslateX())
+			&& transform.getTranslateY() == Math.rint(transform.getTranslateY());
+	}
+	
+	// Make sure the layer covers the canvas and wipe it
+	public void clear(int width, int height)
+	{
+		if ( layer == null || layerWidth != width || layerHeight != height )
+		{
+			layerWidth = Math.max(width, 1);
+			layerHeight = Math.max(height, 1);
+			layer = new BufferedImage(layerWidth, layerHeight, BufferedImage.TYPE_INT_ARGB_PRE);
+			pixels = ((DataBufferInt)layer.getRaster().getDataBuffer()).getData();
+		}
+		else
+		{
+			Arrays.fill(pixels, 0);
+		}
+	}
+	
+	public BufferedImage getLayer()
+	{
+		return layer;
+	}
+	
+	// Same result as an anti-aliased fillOval(x, y, size, size) in the given colour
+	public void dab(int x, int y, int size, Color color)
+	{
+		if ( size <= 0 ) return;
+		
+		int[] stamp = stamp(size, color.getRGB());
+		int startX = Math.max(0, -x), endX = Math.min(size, layerWidth - x);
+		int startY = Math.max(0, -y), endY = Math.min(size, layerHeight - y);
+		
+		for ( int sy = startY; sy < endY; sy++ )
+		{
+			int src = sy * size;
+			int dst = (y + sy) * layerWidth + x;
+			for ( int sx = startX; sx < endX; sx++ )
+			{
+				int s = stamp[src + sx];
+				int alpha = s >>> 24;
+				if ( alpha == 0xFF )
+				{
+					pixels[dst + sx] = s;
+				}
+				else if ( alpha != 0 )
+				{
+					// Source over, both sides premultiplied
+					int d = pixels[dst + sx];
+					int inv = 0xFF - alpha;
+					pixels[dst + sx] = s
+						+ ((((d >>> 24) * inv + 0x7F) / 0xFF) << 24)
+						+ (((((d >> 16) & 0xFF) * inv + 0x7F) / 0xFF) << 16)
+						+ (((((d >> 8) & 0xFF) * inv + 0x7F) / 0xFF) << 8)
+						+ (((d & 0xFF) * inv + 0x7F) / 0xFF);
+				}
+			}
+		}
+	}
+	
+	// Premultiplied stamp for a size and colour, from the LRU cache if we've seen it recently
+	private int[] stamp(int size, int argb)
+	{
+		if ( lastStamp != null && size == lastSize && argb == lastArgb ) return lastStamp;
+		
+		Long key = ((long)size << 32) | (argb & 0xFFFFFFFFL);
+		int[] stamp = tints.get(key);
+		if ( stamp == null )
+		{
+			int[] mask = mask(size);
+			int colorAlpha = argb >>> 24;
+			stamp = new int[mask.length];
+			for ( int i = 0; i < mask.length; i++ )
+			{
+				int a = (mask[i] * colorAlpha + 0x7F) / 0xFF;
+				stamp[i] = (a << 24)
+					| ((((argb >> 16) & 0xFF) * a + 0x7F) / 0xFF) << 16
+					| ((((argb >> 8) & 0xFF) * a + 0x7F) / 0xFF) << 8
+					| (((argb & 0xFF) * a + 0x7F) / 0xFF);
+			}
+			tints.put(key, stamp);
+		}
+		lastStamp = stamp;
+		lastSize = size;
+		lastArgb = argb;
+		return stamp;
+	}
+	
+	// Coverage of an anti-aliased size x size oval, rendered the same way the canvas would
+	private int[] mask(int size)
+	{
+		int[] mask = masks.get(size);
+		if ( mask == null )
+		{
+			BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D gfx = image.createGraphics();
+			gfx.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+			gfx.setColor(Color.white);
+			gfx.fillOval(0, 0, size, size);
+			gfx.dispose();
+			
+			mask = image.getRGB(0, 0, size, size, null, 0, size);
+			for ( int i = 0; i < mask.length; i++ )
+			{
+				mask[i] >>>= 24;
+			}
+			masks.putIfAbsent(size, mask);
+		}
+		return mask;
+	}
+	
+	// java NXDraw --bench-brush [dabs] [rounds]
+	// Times random dabs (sizes 0-20, one colour per 50-dab stroke) drawn with fillOval and with stamps,
+	// and reports the largest per-channel difference between the two on an opaque white canvas.
+	public static void benchmark(String[] args)
+	{
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		
+		Random random = new Random(1);
+		int[][] xy = new int[count][3];
+		Color[] colors = new Color[count];
+		for ( int i = 0; i < count; i++ )
+		{
+			xy[i][0] = random.nextInt(Drawing.WIDTH + 20) - 10;
+			xy[i][1] = random.nextInt(Drawing.HEIGHT + 20) - 10;
+			xy[i][2] = random.nextInt(21);
+			colors[i] = i % 50 == 0 ? new Color(random.nextInt(0x1000000)) : colors[i - 1];
+		}
+		
+		BufferedImage ovals = whiteCanvas(), stamps = whiteCanvas();
+		BrushEngine brush = new BrushEngine();
+		drawOvals(ovals, xy, colors);
+		drawStamps(stamps, brush, xy, colors);
+		int maxDiff = 0;
+		for ( int y = 0; y < Drawing.HEIGHT; y++ )
+		{
+			for ( int x = 0; x < Drawing.WIDTH; x++ )
+			{
+				int a = ovals.getRGB(x, y), b = stamps.getRGB(x, y);
+				for ( int shift = 0; shift < 24; shift += 8 )
+				{
+					maxDiff = Math.max(maxDiff, Math.abs(((a >> shift) & 0xFF) - ((b >> shift) & 0xFF)));
+				}
+			}
+		}
+		
+		// First pass warms up the JIT, second one is reported
+		double ovalNanos = 0, stampNanos = 0;
+		for ( int pass = 0; pass < 2; pass++ )
+		{
+			long start = System.nanoTime();
+			for ( int r = 0; r < rounds; r++ ) drawOvals(ovals, xy, colors);
+			long middle = System.nanoTime();
+			for ( int r = 0; r < rounds; r++ ) drawStamps(stamps, brush, xy, colors);
+			long end = System.nanoTime();
+			ovalNanos = (double)(middle - start) / rounds / count;
+			stampNanos = (double)(end - middle) / rounds / count;
+		}
+		System.out.printf("%d dabs x %d rounds%n", count, rounds);
+		System.out.printf("fillOval: %.1f ns/dab%n", ovalNanos);
+		System.out.printf("stamps:   %.1f ns/dab (%.1fx)%n", stampNanos, ovalNanos / stampNanos);
+		System.out.println("max channel difference: " + maxDiff);
+	}
+	
+	private static BufferedImage whiteCanvas()
+	{
+		BufferedImage image = new BufferedImage(Drawing.WIDTH, Drawing.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D gfx = image.createGraphics();
+		gfx.setColor(Color.white);
+		gfx.fillRect(0, 0, Drawing.WIDTH, Drawing.HEIGHT);
+		gfx.dispose();
+		return image;
+	}
+	
+	private static void drawOvals(BufferedImage image, int[][] xy, Color[] colors)
+	{
+		Graphics2D gfx = image.createGraphics();
+		gfx.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		for ( int i = 0; i < xy.length; i++ )
+		{
+			gfx.setColor(colors[i]);
+			gfx.fillOval(xy[i][0] - (xy[i][2] / 2), xy[i][1] - (xy[i][2] / 2), xy[i][2], xy[i][2]);
+		}
+		gfx.dispose();
+	}
+	
+	private static void drawStamps(BufferedImage image, BrushEngine brush, int[][] xy, Color[] colors)
+	{
+		brush.clear(Drawing.WIDTH, Drawing.HEIGHT);
+		for ( int i = 0; i < xy.length; i++ )
+		{
+			brush.dab(xy[i][0] - (xy[i][2] / 2), xy[i][1] - (xy[i][2] / 2), xy[i][2], colors[i]);
+		}
+		Graphics2D gfx = image.createGraphics();
+		gfx.drawImage(brush.getLayer(), 0, 0, null);
+		gfx.dispose();
+	}
+}
@@ -0,0 +1,142 @@
+import java.awt.*;
+import java.io.*;
+
+/**
+ * Everything in a drawing - the arrays the canvas draws and the Save menu writes out.
+ * Kept separate from the window so a saved drawing can be rendered without the Swing canvas.
+ */
+
+public class Drawing {
+	public static final int WIDTH = 640;								// Size of the canvas drawings are made on
+	public static final int HEIGHT = 800;
+	public static final int MAX_FHAND = 100000;							// Max. no of freehand squares
+	public static final int MAX_RECTS = 10;								// Maximum number of rectangles
+	public static final int MAX_OVALS = 10;								// Maximum number of ovals
+	public static final int MAX_LINES = 10;								// Maximum number of lines
+	public static final int MAX_DAB_SIZE = 100;							// Largest a freehand square can be
+	public static final int MAX_BYTES = 16 * 1024 * 1024;				// Largest drawing file we'll read
+	
+	// Only let through what the Save menu writes, and no bigger than it would write it,
+	// so a drawing file can't make us create other objects or huge arrays
+	private static final ObjectInputFilter FILTER = ObjectInputFilter.Config.createFilter(
+		"maxdepth=3;maxarray=" + MAX_FHAND + ";maxbytes=" + MAX_BYTES + ";java.awt.Color;!*");
+	
+	int[][] line_xy, oval_xy, rect_xy, fhand_xy;
+	Color[] line_color, oval_color, rect_color, fhand_color;
+	int line_count, oval_count, rect_count, fhand_count;
+	
+	// Read a drawing in the order the Save menu writes it
+	public static Drawing read(InputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream objectIn = new ObjectInputStream(in);
+		objectIn.setObjectInputFilter(FILTER);
+		try
+		{
+			Drawing drawing = new Drawing();
+			drawing.line_xy = (int[][])objectIn.readObject();
+			drawing.line_color = (Color[])objectIn.readObject();
+			drawing.line_count = objectIn.readInt();
+			drawing.oval_xy = (int[][])objectIn.readObject();
+			drawing.oval_color = (Color[])objectIn.readObject();
+			drawing.oval_count = objectIn.readInt();
+			drawing.rect_xy = (int[][])objectIn.readObject();
+			drawing.rect_color = (Color[])objectIn.readObject();
+			drawing.rect_count = objectIn.readInt();
+			drawing.fhand_xy = (int[][])objectIn.readObject();
+			drawing.fhand_color = (Color[])objectIn.readObject();
+			drawing.fhand_count = objectIn.readInt();
+			
+			check(drawing.line_xy, drawing.line_color, drawing.line_count, MAX_LINES, 4, true);
+			check(drawing.oval_xy, drawing.oval_color, drawing.oval_count, MAX_OVALS, 4, true);
+			check(drawing.rect_xy, drawing.rect_color, drawing.rect_count, MAX_RECTS, 4, true);
+			check(drawing.fhand_xy, drawing.fhand_color, drawing.fhand_count, MAX_FHAND, 3, false);
+			for( int i = 0; i < drawing.fhand_count; i++ )
+			{
+				int size = drawing.fhand_xy[i][2];
+				if( size < 0 || size > MAX_DAB_SIZE ) throw new InvalidObjectException("freehand square " + i + " has size " + size);
+			}
+			return drawing;
+		}
+		catch (ClassCastException e)
+		{
+			throw new InvalidObjectException(e.getMessage());
+		}
+	}
+	
+	// Make sure draw() and the editor won't run off the end of anything. Drawing tools also look at the
+	// shape one past the count (the one being dragged out), so those rows have to be there too
+	private static void check(int[][] xy, Color[] color, int count, int max, int columns, boolean usesNext) throws InvalidObjectException
+	{
+		if( xy == null || color == null )
+		{
+			throw new InvalidObjectException("missing data");
+		}
+		if( xy.length > max || color.length != xy.length )
+		{
+			throw new InvalidObjectException(xy.length + " rows, " + color.length + " colours, at most " + max + " allowed");
+		}
+		if( count < 0 || count > xy.length )
+		{
+			throw new InvalidObjectException("bad count " + count);
+		}
+		int rows = usesNext ? Math.min(count + 1, xy.length) : count;
+		for( int i = 0; i < rows; i++ )
+		{
+			if( xy[i] == null || xy[i].length < columns ) throw new InvalidObjectException("short row " + i);
+		}
+	}
+	
+	public void draw(Graphics gfx, BrushEngine brush, int width, int height)
+	{
+		// Freehand, for every pixel... Dabs are composited from cached brush stamps into a layer,
+		// which is then drawn in one go rather than running fillOval for every dab
+		if ( fhand_count > 0 && !BrushEngine.canComposite(gfx) )
+		{
+			// Scaled (e.g. HiDPI) canvas - the layer would be blown up and blurry, so draw the ovals
+			for ( int i = 0; i < fhand_count; i++ )
+			{
+				gfx.setColor(fhand_color[i]);
+				int width_height = fhand_xy[i][2];
+				int offsetX = fhand_xy[i][0] - (width_height / 2);
+				int offsetY = fhand_xy[i][1] - (width_height / 2);
+				gfx.fillOval(offsetX, offsetY, width_height, width_height);
+			}
+		}
+		else if ( fhand_count > 0 )
+		{
+			brush.clear(width, height);
+			Color dabColor = gfx.getColor();
+			for ( int i = 0; i < fhand_count; i++ )
+			{
+				if ( fhand_color[i] != null ) dabColor = fhand_color[i];	// setColor(null) used to keep the last colour
+				int width_height = fhand_xy[i][2];
+				int offsetX = fhand_xy[i][0] - (width_height / 2);
+				int offsetY = fhand_xy[i][1] - (width_height / 2);
+				brush.dab(offsetX, offsetY, width_height, dabColor);
+			}
+			gfx.drawImage(brush.getLayer(), 0, 0, null);
+		}
+   
+		// Drawing tools
+		// First, rectanges
+		for( int i = 0; i <= rect_count && rect_count < rect_xy.length; i++ )
+		{
+			gfx.setColor(rect_color[i]);
+			gfx.drawRect(Math.min(rect_xy[i][0],rect_xy[i][2]), Math.min(rect_xy[i][1], rect_xy[i][3]), Math.abs(rect_xy[i][0] - rect_xy[i][2]), Math.abs(rect_xy[i][1] - rect_xy[i][3]));
+		}
+		
+		// Ovals
+		for( int i = 0; i <= oval_count && oval_count < oval_xy.length; i++ )
+		{
+			gfx.setColor(oval_color[i]);
+			gfx.drawOval(Math.min(oval_xy[i][0],oval_xy[i][2]), Math.min(oval_xy[i][1], oval_xy[i][3]), Math.abs(oval_xy[i][0] - oval_xy[i][2]), Math.abs(oval_xy[i][1] - oval_xy[i][3]));
+		}
+		
+		// Lines
+		for( int i = 0; i <= line_count && line_count < line_xy.length; i++ )
+		{
+			gfx.setColor(line_color[i]);
+			gfx.drawLine(line_xy[i][0], line_xy[i][1], line_xy[i][2], line_xy[i][3]);
+		}
+	}
+}
@@ -6,9 +6,10 @@ import javax.swing.event.*;
 import javax.swing.JColorChooser;
 import javax.swing.JOptionPane;
 import javax.swing.Timer;
-import javax.swing.UnsupportedLookAndFeelException;
 
 import java.io.*;
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
 
 /**
  * Implementation of NDraw
@@ -21,8 +22,8 @@ public class NXDraw extends JFrame {
     private static final boolean NIMBUS = true;
 	private static final long serialVersionUID = 1L;
 	// Window
-    private final int CANVAS_HEIGHT = 800;								// Canvas height
-    private final int CANVAS_WIDTH = 640;								// Canvas width
+    private static final int CANVAS_HEIGHT = Drawing.HEIGHT;				// Canvas height
+    private static final int CANVAS_WIDTH = Drawing.WIDTH;				// Canvas width
     private final int CP_WIDTH = 200;									// Control panel width
     private final int MA_HEIGHT = 100;									// Message area height
     private final String WINDOW_TITLE = "NDraw";						// Window title
@@ -35,16 +36,16 @@ public class NXDraw extends JFrame {
 	// Freehand drawing
 	int fhand_thickness = 1;											// Get the value of the thickness slider
 	private int fhand_count = 0;										// Make sure we don't go over the limit of the below arrays
-	private final int MAX_FHAND = 100000;								// Max. no of freehand squares
+	private final int MAX_FHAND = Drawing.MAX_FHAND;					// Max. no of freehand squares
 	private Color[] fhand_color = new Color[MAX_FHAND];					// Hold color of each square
 	private int[][] fhand_xy = new int[MAX_FHAND][3];					// Position and size of each square
 	private Color selected_color = new Color(0.0f, 0.0f, 0.0f);			// Initial color. Currently black
 	private int fh_left = MAX_FHAND;									// How many freehand drawings can we still do?
 
 	// Drawing tools - rectangle, ovals and lines
-	private final int MAX_RECTS = 10;									// Maximum number of rectangles
-	private final int MAX_OVALS = 10;									// Maximum number of ovals
-	private final int MAX_LINES = 10;									// Maximum number of lines
+	private final int MAX_RECTS = Drawing.MAX_RECTS;					// Maximum number of rectangles
+	private final int MAX_OVALS = Drawing.MAX_OVALS;					// Maximum number of ovals
+	private final int MAX_LINES = Drawing.MAX_LINES;					// Maximum number of lines
 
 	private int[][] rect_xy = new int[MAX_RECTS][4];					// x1, y1, x2 and y2 for rectangles
 	private Color[] rect_color = new Color[MAX_RECTS];					// Line color of rectangles
@@ -60,6 +61,26 @@ public class NXDraw extends JFrame {
 
 	private char curr_dtool_mode = 'l';									// Current mode for the drawing tool
 	
+	// Selection
+	private int[] sel_fhand = new int[MAX_FHAND];						// Indices of the selected freehand squares
+	private int sel_fhand_count = 0;									// Number of selected freehand squares
+	private boolean[] sel_rect = new boolean[MAX_RECTS];				// Which rectangles are selected
+	private boolean[] sel_oval = new boolean[MAX_OVALS];				// Which ovals are selected
+	private boolean[] sel_line = new boolean[MAX_LINES];				// Which lines are selected
+	private Rectangle sel_bounds = null;								// Bounding box of the selection, null if nothing is selected
+	private int[] marquee_xy = new int[4];								// x1, y1, x2 and y2 of the marquee being dragged
+	private boolean marquee_active = false;								// Are we dragging out a marquee?
+	private boolean sel_moving = false;									// Are we dragging the selection around?
+	private int[] sel_drag_xy = new int[2];								// Last mouse position while moving the selection
+	private float[] sel_x = new float[0];								// Unrounded x coordinates of the selected points, for the point transformer
+	private float[] sel_y = new float[0];								// Unrounded y coordinates of the selected points, for the point transformer
+	private int sel_points = 0;											// Number of points in sel_x and sel_y
+	private float[] sel_size = new float[MAX_FHAND];					// Unrounded sizes of the selected freehand squares
+	private final int SEL_SLACK = 3;									// How far outside the selection we can still grab it
+	private final int MAX_DAB_SIZE = Drawing.MAX_DAB_SIZE;				// Largest a freehand square can be scaled to
+	private final double MIN_SCALE = 0.01;								// Smallest scale factor we accept
+	private final double MAX_SCALE = 100.0;								// Largest scale factor we accept
+	
 	// Instance declarations
 	private Canvas canvas;
 	private Cursor canvasCursor;
@@ -68,12 +89,15 @@ public class NXDraw extends JFrame {
 	private JRadioButton lineRadioButton, ovalRadioButton, rectangleRadioButton, freehandRadioButton;
 	private JSlider freehandSizeSlider;
 	private JCheckBox fineCheckBox, coarseCheckBox;
-	private JButton colourButton, clearButton, animateButton;
+	private JRadioButton selectRadioButton;
+	private JButton colourButton, clearButton, animateButton, scaleButton, rotateButton;
 	private JTextArea messageArea;
 	private ObjectOutputStream objectOut;
-	private ObjectInputStream objectIn;
+	private FileInputStream fileIn;
 	private JFileChooser fileChooser = new JFileChooser();
 	private File file;
+	private BrushEngine brush = new BrushEngine();
+	private PointTransformer pointTransformer = PointTransformer.create();
 	
 	// -------------------------------------------------------------------------------------------------------------------------------------
 	
@@ -125,36 +149,25 @@ public class NXDraw extends JFrame {
 				} 
 			}
 			
-			// Freehand, for every pixel...
-			for ( int i = 0; i < fhand_count; i++ )
-			{
-				gfx.setColor(fhand_color[i]);
-				int width_height = fhand_xy[i][2];
-				int offsetX = fhand_xy[i][0] - (width_height / 2);
-				int offsetY = fhand_xy[i][1] - (width_height / 2);
-				gfx.fillOval(offsetX, offsetY, width_height, width_height);
-			}
-   
-			// Drawing tools
-			// First, rectanges
-			for( int i = 0; i <= rect_count && rect_count < MAX_RECTS; i++ )
-			{
-				gfx.setColor(rect_color[i]);
-				gfx.drawRect(Math.min(rect_xy[i][0],rect_xy[i][2]), Math.min(rect_xy[i][1], rect_xy[i][3]), Math.abs(rect_xy[i][0] - rect_xy[i][2]), Math.abs(rect_xy[i][1] - rect_xy[i][3]));
-			}
-			
-			// Ovals
-			for( int i = 0; i <= oval_count && oval_count < MAX_OVALS; i++ )
-			{
-				gfx.setColor(oval_color[i]);
-				gfx.drawOval(Math.min(oval_xy[i][0],oval_xy[i][2]), Math.min(oval_xy[i][1], oval_xy[i][3]), Math.abs(oval_xy[i][0] - oval_xy[i][2]), Math.abs(oval_xy[i][1] - oval_xy[i][3]));
-			}
+			// Freehand and drawing tools
+			currentDrawing().draw(gfx, brush, canvasWidth, canvasHeight);
 			
-			// Lines
-			for( int i = 0; i <= line_count && line_count < MAX_LINES; i++ )
+			// Selection outline and marquee
+			if( curr_dtool_mode == 's' && (sel_bounds != null || marquee_active) )
 			{
-				gfx.setColor(line_color[i]);
-				gfx.drawLine(line_xy[i][0], line_xy[i][1], line_xy[i][2], line_xy[i][3]);
+				Graphics2D gfx2 = (Graphics2D)gfx;
+				Stroke oldStroke = gfx2.getStroke();
+				gfx2.setStroke(new BasicStroke(1.0F, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10.0F, new float[] { 4.0F, 4.0F }, 0.0F));
+				gfx2.setColor(Color.gray);
+				if( sel_bounds != null )
+				{
+					gfx2.drawRect(sel_bounds.x, sel_bounds.y, sel_bounds.width, sel_bounds.height);
+				}
+				if( marquee_active )
+				{
+					gfx2.drawRect(Math.min(marquee_xy[0], marquee_xy[2]), Math.min(marquee_xy[1], marquee_xy[3]), Math.abs(marquee_xy[0] - marquee_xy[2]), Math.abs(marquee_xy[1] - marquee_xy[3]));
+				}
+				gfx2.setStroke(oldStroke);
 			}
 		}
 	}
@@ -202,6 +215,20 @@ public class NXDraw extends JFrame {
 					oval_xy[oval_count][2] = evt.getX();
 					oval_xy[oval_count][3] = evt.getY();
 			   break;
+			   
+			   case 's':
+					if( sel_moving )
+					{
+						transformSelection(AffineTransform.getTranslateInstance(evt.getX() - sel_drag_xy[0], evt.getY() - sel_drag_xy[1]));
+						sel_drag_xy[0] = evt.getX();
+						sel_drag_xy[1] = evt.getY();
+					}
+					else
+					{
+						marquee_xy[2] = evt.getX();
+						marquee_xy[3] = evt.getY();
+					}
+			   break;
 			}
 			
 			// Repaint the canvas
@@ -237,6 +264,22 @@ public class NXDraw extends JFrame {
 					oval_xy[oval_count][1] = oval_xy[oval_count][3] = evt.getY();
 					oval_color[oval_count] = selected_color;
 				break;
+				
+				case 's':
+					// Grab the selection if we're inside it, otherwise start a new marquee
+					if( selectionContains(evt.getX(), evt.getY()) )
+					{
+						sel_moving = true;
+						sel_drag_xy[0] = evt.getX();
+						sel_drag_xy[1] = evt.getY();
+					}
+					else
+					{
+						marquee_xy[0] = marquee_xy[2] = evt.getX();
+						marquee_xy[1] = marquee_xy[3] = evt.getY();
+						marquee_active = true;
+					}
+				break;
 			}
 		}
 		
@@ -247,6 +290,15 @@ public class NXDraw extends JFrame {
 				case 'l': line_count++; break;
 				case 'r': rect_count++; break;
 				case 'o': oval_count++; break;
+				case 's':
+					if( marquee_active )
+					{
+						marquee_active = false;
+						selectInMarquee();
+					}
+					sel_moving = false;
+					canvas.repaint();
+				break;
 			}  
 		}
 		
@@ -334,6 +386,8 @@ public class NXDraw extends JFrame {
 			oval_xy = new int[MAX_OVALS][4];
 			oval_count = 0;
 			
+			clearSelection();
+			
 			messageArea.setText("Canvas has been cleared");
 			repaint();
 		}
@@ -383,6 +437,74 @@ public class NXDraw extends JFrame {
 			{
 				curr_dtool_mode = 'f';
 			}
+			else if ( currentMode == "Select" )
+			{
+				curr_dtool_mode = 's';
+			}
+			canvas.repaint();
+		}
+	}
+	
+	// Scale the selection about its centre
+	class ScaleButtonActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent evt)
+		{
+			if( sel_bounds == null )
+			{
+				messageArea.append("Nothing is selected!\n");
+				return;
+			}
+			String input = JOptionPane.showInputDialog(canvas, "Scale factor:", "1.0");
+			if( input == null ) return;
+			try
+			{
+				double factor = Double.parseDouble(input.trim());
+				// Also catches NaN and Infinity. A factor of 0 would collapse the selection for good
+				if( !(factor >= MIN_SCALE && factor <= MAX_SCALE) )
+				{
+					messageArea.append("The scale factor must be between " + MIN_SCALE + " and " + MAX_SCALE + "\n");
+					return;
+				}
+				AffineTransform transform = new AffineTransform();
+				transform.translate(sel_bounds.getCenterX(), sel_bounds.getCenterY());
+				transform.scale(factor, factor);
+				transform.translate(-sel_bounds.getCenterX(), -sel_bounds.getCenterY());
+				transformSelection(transform);
+			}
+			catch (NumberFormatException e)
+			{
+				messageArea.append("\"" + input + "\" is not a number\n");
+			}
+		}
+	}
+	
+	// Rotate the selection about its centre
+	class RotateButtonActionListener implements ActionListener
+	{
+		public void actionPerformed(ActionEvent evt)
+		{
+			if( sel_bounds == null )
+			{
+				messageArea.append("Nothing is selected!\n");
+				return;
+			}
+			String input = JOptionPane.showInputDialog(canvas, "Rotate by (degrees):", "90");
+			if( input == null ) return;
+			try
+			{
+				double degrees = Double.parseDouble(input.trim());
+				if( Double.isNaN(degrees) || Double.isInfinite(degrees) )
+				{
+					messageArea.append("\"" + input + "\" is not a number\n");
+					return;
+				}
+				transformSelection(AffineTransform.getRotateInstance(Math.toRadians(degrees), sel_bounds.getCenterX(), sel_bounds.getCenterY()));
+			}
+			catch (NumberFormatException e)
+			{
+				messageArea.append("\"" + input + "\" is not a number\n");
+			}
 		}
 	}
 	
@@ -453,19 +575,21 @@ public class NXDraw extends JFrame {
 	            try
 	            {
 	            	messageArea.append("Open file " + file);
-					objectIn = new ObjectInputStream(new FileInputStream(file));
-					line_xy = (int[][])objectIn.readObject();
-					line_color = (Color[])objectIn.readObject();
-					line_count = (int)objectIn.readInt();
-					oval_xy = (int[][])objectIn.readObject();
-					oval_color = (Color[])objectIn.readObject();
-					oval_count = (int)objectIn.readInt();
-					rect_xy = (int[][])objectIn.readObject();
-					rect_color = (Color[])objectIn.readObject();
-					rect_count = (int)objectIn.readInt();
-					fhand_xy = (int[][])objectIn.readObject();
-					fhand_color = (Color[])objectIn.readObject();
-					fhand_count = (int)objectIn.readInt();
+					fileIn = new FileInputStream(file);
+					Drawing drawing = Drawing.read(fileIn);
+					line_xy = drawing.line_xy;
+					line_color = drawing.line_color;
+					line_count = drawing.line_count;
+					oval_xy = drawing.oval_xy;
+					oval_color = drawing.oval_color;
+					oval_count = drawing.oval_count;
+					rect_xy = drawing.rect_xy;
+					rect_color = drawing.rect_color;
+					rect_count = drawing.rect_count;
+					fhand_xy = drawing.fhand_xy;
+					fhand_color = drawing.fhand_color;
+					fhand_count = drawing.fhand_count;
+					clearSelection();
 					repaint();
 				}
 	            catch (FileNotFoundException e)
@@ -482,9 +606,9 @@ public class NXDraw extends JFrame {
 				{
 					try
 	            	{
-	                    if (objectIn != null)
+	                    if (fileIn != null)
 	                    {
-	                    	objectIn.close();
+	                    	fileIn.close();
 	                    }
 	                }
 	            	catch (IOException ex)
@@ -575,7 +699,7 @@ public class NXDraw extends JFrame {
 		
 		// Drawing tools panel
 		JPanel drawingToolsPanel = new JPanel();
-		drawingToolsPanel.setPreferredSize(new Dimension(CP_WIDTH - 20, 140));
+		drawingToolsPanel.setPreferredSize(new Dimension(CP_WIDTH - 20, 170));
 		drawingToolsPanel.setLayout(new GridLayout(0, 1));
 		drawingToolsPanel.setBorder(new TitledBorder(new EtchedBorder(), "Drawing Tools"));
 		ButtonGroup drawingToolsButtonGroup = new ButtonGroup();
@@ -595,6 +719,10 @@ public class NXDraw extends JFrame {
 		freehandRadioButton.addActionListener(new DrawingToolActionListener());
 		drawingToolsButtonGroup.add(freehandRadioButton);
 		drawingToolsPanel.add(freehandRadioButton);
+		selectRadioButton = new JRadioButton("Select");
+		selectRadioButton.addActionListener(new DrawingToolActionListener());
+		drawingToolsButtonGroup.add(selectRadioButton);
+		drawingToolsPanel.add(selectRadioButton);
 		controlPanel.add(drawingToolsPanel);
 		
 		// Freehand trace size slider
@@ -635,6 +763,19 @@ public class NXDraw extends JFrame {
 		colourButton.addActionListener(new ColorChooserActionListener());
 		colourPanel.add(colourButton);
 		controlPanel.add(colourPanel);
+		
+		// Selection panel
+		JPanel selectionPanel = new JPanel();
+		selectionPanel.setPreferredSize(new Dimension(CP_WIDTH - 20, 90));
+		selectionPanel.setLayout(new GridLayout(0, 1));
+		selectionPanel.setBorder(new TitledBorder(new EtchedBorder(), "Selection"));
+		scaleButton = new JButton("Scale...");
+		scaleButton.addActionListener(new ScaleButtonActionListener());
+		selectionPanel.add(scaleButton);
+		rotateButton = new JButton("Rotate...");
+		rotateButton.addActionListener(new RotateButtonActionListener());
+		selectionPanel.add(rotateButton);
+		controlPanel.add(selectionPanel);
 
 		// Clear button
 		clearButton = new JButton("Clear Canvas");
@@ -692,8 +833,216 @@ public class NXDraw extends JFrame {
 	
 	// --------------------------------------------------------
 	
-	public static void main(String args[]) throws ClassNotFoundException, InstantiationException, IllegalAccessException, UnsupportedLookAndFeelException
+	// The drawing as it stands, sharing our arrays rather than copying them
+	private Drawing currentDrawing()
 	{
+		Drawing drawing = new Drawing();
+		drawing.line_xy = line_xy;
+		drawing.line_color = line_color;
+		drawing.line_count = line_count;
+		drawing.oval_xy = oval_xy;
+		drawing.oval_color = oval_color;
+		drawing.oval_count = oval_count;
+		drawing.rect_xy = rect_xy;
+		drawing.rect_color = rect_color;
+		drawing.rect_count = rect_count;
+		drawing.fhand_xy = fhand_xy;
+		drawing.fhand_color = fhand_color;
+		drawing.fhand_count = fhand_count;
+		return drawing;
+	}
+	
+	// Select every freehand square whose centre, and every finished shape whose two points, are inside the marquee
+	private void selectInMarquee()
+	{
+		Rectangle marquee = new Rectangle(Math.min(marquee_xy[0], marquee_xy[2]), Math.min(marquee_xy[1], marquee_xy[3]), Math.abs(marquee_xy[0] - marquee_xy[2]) + 1, Math.abs(marquee_xy[1] - marquee_xy[3]) + 1);
+		
+		sel_fhand_count = 0;
+		for( int i = 0; i < fhand_count; i++ )
+		{
+			if( marquee.contains(fhand_xy[i][0], fhand_xy[i][1]) ) sel_fhand[sel_fhand_count++] = i;
+		}
+		int shapes = selectShapes(marquee, rect_xy, sel_rect, rect_count)
+			+ selectShapes(marquee, oval_xy, sel_oval, oval_count)
+			+ selectShapes(marquee, line_xy, sel_line, line_count);
+		
+		// Take unrounded copies of everything selected. Transforms work on these, so repeated moves and
+		// scales compose instead of piling up rounding (and small squares don't shrink away to nothing)
+		int n = sel_fhand_count + 2 * (MAX_RECTS + MAX_OVALS + MAX_LINES);
+		if( sel_x.length < n )
+		{
+			sel_x = new float[n];
+			sel_y = new float[n];
+		}
+		n = 0;
+		for( int i = 0; i < sel_fhand_count; i++ )
+		{
+			sel_x[n] = fhand_xy[sel_fhand[i]][0];
+			sel_y[n++] = fhand_xy[sel_fhand[i]][1];
+			sel_size[i] = fhand_xy[sel_fhand[i]][2];
+		}
+		n = gatherShapes(rect_xy, sel_rect, n);
+		n = gatherShapes(oval_xy, sel_oval, n);
+		n = gatherShapes(line_xy, sel_line, n);
+		sel_points = n;
+		
+		updateSelectionBounds();
+		messageArea.append("Selected " + sel_fhand_count + " freehand squares and " + shapes + " shapes\n");
+	}
+	
+	private int selectShapes(Rectangle marquee, int[][] xy, boolean[] selected, int count)
+	{
+		int found = 0;
+		for( int i = 0; i < selected.length; i++ )
+		{
+			selected[i] = i < count && marquee.contains(xy[i][0], xy[i][1]) && marquee.contains(xy[i][2], xy[i][3]);
+			if( selected[i] ) found++;
+		}
+		return found;
+	}
+	
+	private void clearSelection()
+	{
+		sel_fhand_count = 0;
+		Arrays.fill(sel_rect, false);
+		Arrays.fill(sel_oval, false);
+		Arrays.fill(sel_line, false);
+		sel_points = 0;
+		sel_bounds = null;
+		marquee_active = false;
+		sel_moving = false;
+	}
+	
+	// Hit test for grabbing the selection, with a little slack so thin selections can still be picked up
+	private boolean selectionContains(int x, int y)
+	{
+		if( sel_bounds == null ) return false;
+		Rectangle grab = new Rectangle(sel_bounds);
+		grab.grow(SEL_SLACK, SEL_SLACK);
+		return grab.contains(x, y);
+	}
+	
+	private void updateSelectionBounds()
+	{
+		sel_bounds = null;
+		for( int i = 0; i < sel_fhand_count; i++ )
+		{
+			int[] dab = fhand_xy[sel_fhand[i]];
+			Rectangle dabBounds = new Rectangle(dab[0] - (dab[2] / 2), dab[1] - (dab[2] / 2), dab[2], dab[2]);
+			if( sel_bounds == null ) sel_bounds = dabBounds;
+			else sel_bounds.add(dabBounds);
+		}
+		addShapeBounds(rect_xy, sel_rect);
+		addShapeBounds(oval_xy, sel_oval);
+		addShapeBounds(line_xy, sel_line);
+		
+		// Rectangle.add leaves the far edges exclusive - take in the last row and column of pixels too
+		if( sel_bounds != null )
+		{
+			sel_bounds.width++;
+			sel_bounds.height++;
+		}
+	}
+	
+	private void addShapeBounds(int[][] xy, boolean[] selected)
+	{
+		for( int i = 0; i < selected.length; i++ )
+		{
+			if( !selected[i] ) continue;
+			if( sel_bounds == null ) sel_bounds = new Rectangle(xy[i][0], xy[i][1], 0, 0);
+			else sel_bounds.add(xy[i][0], xy[i][1]);
+			sel_bounds.add(xy[i][2], xy[i][3]);
+		}
+	}
+	
+	// Move every selected point in one go: the unrounded freehand centres and shape points taken when the
+	// selection was made are handed to the point transformer, then the rounded results are written back.
+	// Rectangles and ovals are still drawn axis aligned between their two points after a rotation.
+	private void transformSelection(AffineTransform transform)
+	{
+		if( sel_bounds == null ) return;
+		
+		double[] matrix = new double[6];
+		transform.getMatrix(matrix);
+		pointTransformer.transform(sel_x, sel_y, sel_points, matrix);
+		
+		// Freehand squares grow and shrink with the scale. A visible square never rounds down to nothing
+		float sizeScale = (float)Math.sqrt(Math.abs(transform.getDeterminant()));
+		int n = 0;
+		for( int i = 0; i < sel_fhand_count; i++ )
+		{
+			int[] dab = fhand_xy[sel_fhand[i]];
+			dab[0] = Math.round(sel_x[n]);
+			dab[1] = Math.round(sel_y[n++]);
+			if( sizeScale != 1.0F )
+			{
+				sel_size[i] = Math.min(MAX_DAB_SIZE, sel_size[i] * sizeScale);
+				if( dab[2] > 0 ) dab[2] = Math.max(1, Math.round(sel_size[i]));
+			}
+		}
+		n = scatterShapes(rect_xy, sel_rect, n);
+		n = scatterShapes(oval_xy, sel_oval, n);
+		n = scatterShapes(line_xy, sel_line, n);
+		
+		updateSelectionBounds();
+		canvas.repaint();
+	}
+	
+	private int gatherShapes(int[][] xy, boolean[] selected, int n)
+	{
+		for( int i = 0; i < selected.length; i++ )
+		{
+			if( !selected[i] ) continue;
+			sel_x[n] = xy[i][0];
+			sel_y[n++] = xy[i][1];
+			sel_x[n] = xy[i][2];
+			sel_y[n++] = xy[i][3];
+		}
+		return n;
+	}
+	
+	private int scatterShapes(int[][] xy, boolean[] selected, int n)
+	{
+		for( int i = 0; i < selected.length; i++ )
+		{
+			if( !selected[i] ) continue;
+			xy[i][0] = Math.round(sel_x[n]);
+			xy[i][1] = Math.round(sel_y[n++]);
+			xy[i][2] = Math.round(sel_x[n]);
+			xy[i][3] = Math.round(sel_y[n++]);
+		}
+		return n;
+	}
+	
+	// --------------------------------------------------------
+	
+	public static void main(String args[]) throws Exception
+	{
+		// Headless modes for benchmarks and the render service
+		if( args.length > 0 && args[0].equals("--bench-brush") )
+		{
+			System.setProperty("java.awt.headless", "true");
+			BrushEngine.benchmark(args);
+			return;
+		}
+		if( args.length > 0 && args[0].equals("--bench-transform") )
+		{
+			PointTransformer.benchmark(args);
+			return;
+		}
+		if( args.length > 0 && args[0].equals("--serve") )
+		{
+			System.setProperty("java.awt.headless", "true");
+			RenderService.serve(args);
+			return;
+		}
+		if( args.length > 0 && args[0].equals("--loadtest") )
+		{
+			System.setProperty("java.awt.headless", "true");
+			RenderService.loadTest(args);
+			return;
+		}
+		
 		if(NIMBUS) UIManager.setLookAndFeel("com.sun.java.swing.plaf.nimbus.NimbusLookAndFeel");
 		new NXDraw();
 	}
@@ -0,0 +1,108 @@
+import java.awt.geom.AffineTransform;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Applies an affine matrix, laid out as AffineTransform.getMatrix() gives it, to the first n points
+ * held in flat x and y arrays. NXDraw keeps the selection in these arrays so every selected dab
+ * and shape corner is transformed in one pass.
+ */
+
+public interface PointTransformer {
+	void transform(float[] xs, float[] ys, int n, double[] matrix);
+	
+	// Use VectorPointTransformer if it was compiled in and jdk.incubator.vector is available, otherwise the plain loop
+	public static PointTransformer create()
+	{
+		try
+		{
+			return (PointTransformer)Class.forName("VectorPointTransformer").getDeclaredConstructor().newInstance();
+		}
+		catch (Exception e)
+		{
+			return new ScalarPointTransformer();
+		}
+		catch (LinkageError e)
+		{
+			return new ScalarPointTransformer();
+		}
+	}
+
+	// java NXDraw --bench-transform [points] [rounds]
+	// Times the scalar and (if available) Vector API transformers on a rotation about a pivot, both on their
+	// own and with the rounded write-back into int[][] rows that transformSelection does after each one
+	public static void benchmark(String[] args)
+	{
+		int count = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+		int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+		
+		Random random = new Random(1);
+		int[][] dabs = new int[count][3];
+		for( int i = 0; i < count; i++ )
+		{
+			dabs[i][0] = random.nextInt(Drawing.WIDTH);
+			dabs[i][1] = random.nextInt(Drawing.HEIGHT);
+		}
+		double[] matrix = new double[6];
+		AffineTransform.getRotateInstance(0.3, Drawing.WIDTH / 2, Drawing.HEIGHT / 2).getMatrix(matrix);
+		
+		PointTransformer scalar = new ScalarPointTransformer();
+		PointTransformer best = create();
+		PointTransformer[] transformers = best instanceof ScalarPointTransformer ? new PointTransformer[] { scalar } : new PointTransformer[] { scalar, best };
+		if( transformers.length == 1 ) System.out.println("Vector API not available (compile and run with --add-modules jdk.incubator.vector)");
+		
+		float[] xs = new float[count], ys = new float[count];
+		float[] checkX = null, checkY = null;
+		for( PointTransformer transformer : transformers )
+		{
+			double transformMicros = 0, writeBackMicros = 0;
+			// First pass warms up the JIT, second one is reported
+			for( int pass = 0; pass < 2; pass++ )
+			{
+				transformMicros = timeTransform(transformer, xs, ys, matrix, rounds);
+				writeBackMicros = timeTransformAndWriteBack(transformer, dabs, xs, ys, matrix, rounds);
+			}
+			System.out.printf("%s: %.1f us per transform, %.1f us with write-back (%d points)%n", transformer.getClass().getName(), transformMicros, writeBackMicros, count);
+			
+			// Both paths should give exactly the same answer
+			for( int i = 0; i < count; i++ )
+			{
+				xs[i] = i % Drawing.WIDTH;
+				ys[i] = i % Drawing.HEIGHT;
+			}
+			transformer.transform(xs, ys, count, matrix);
+			if( checkX == null )
+			{
+				checkX = xs.clone();
+				checkY = ys.clone();
+			}
+			else
+			{
+				System.out.println("Results identical to scalar: " + (Arrays.equals(checkX, xs) && Arrays.equals(checkY, ys)));
+			}
+		}
+	}
+
+	// Kept in their own small methods so the JIT compiles each loop on its own
+	private static double timeTransform(PointTransformer transformer, float[] xs, float[] ys, double[] matrix, int rounds)
+	{
+		long start = System.nanoTime();
+		for( int r = 0; r < rounds; r++ ) transformer.transform(xs, ys, xs.length, matrix);
+		return (System.nanoTime() - start) / 1e3 / rounds;
+	}
+
+	private static double timeTransformAndWriteBack(PointTransformer transformer, int[][] dabs, float[] xs, float[] ys, double[] matrix, int rounds)
+	{
+		long start = System.nanoTime();
+		for( int r = 0; r < rounds; r++ )
+		{
+			transformer.transform(xs, ys, dabs.length, matrix);
+			for( int i = 0; i < dabs.length; i++ )
+			{
+				dabs[i][0] = Math.round(xs[i]);
+				dabs[i][1] = Math.round(ys[i]);
+			}
+		}
+		return (System.nanoTime() - start) / 1e3 / rounds;
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size-bounded LRU of rendered PNGs. Anything pushed out of memory is written to the spill
+ * directory, if there is one, and read back in from there on a miss.
+ */
+
+public class RenderCache {
+	private final long maxBytes;										// Most PNG bytes to keep in memory
+	private final File spillDir;										// Where evicted PNGs go, or null to drop them
+	private final long maxSpillBytes;									// Most PNG bytes to keep in the spill directory
+	private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+	private long bytes = 0;												// PNG bytes currently in memory
+	private final Object spillLock = new Object();
+	private long spillBytes = 0;										// PNG bytes currently in the spill directory
+	
+	public RenderCache(long maxBytes, File spillDir, long maxSpillBytes)
+	{
+		this.maxBytes = maxBytes;
+		this.spillDir = spillDir;
+		this.maxSpillBytes = maxSpillBytes;
+		if( spillDir == null ) return;
+		
+		// Pick up what an earlier run left behind, minus any half-written files
+		spillDir.mkdirs();
+		for( File file : listFiles(".tmp") ) file.delete();
+		for( File file : listFiles(".png") ) spillBytes += file.length();
+		trimSpill();
+	}
+	
+	public byte[] get(String key) throws IOException
+	{
+		synchronized (this)
+		{
+			byte[] png = entries.get(key);
+			if( png != null || spillDir == null ) return png;
+		}
+		
+		File spilled = new File(spillDir, key + ".png");
+		byte[] png;
+		try
+		{
+			png = readFile(spilled);
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;												// Never spilled, or trimmed since
+		}
+		spilled.setLastModified(System.currentTimeMillis());			// Recently used, so trim it last
+		put(key, png);
+		return png;
+	}
+	
+	public void put(String key, byte[] png) throws IOException
+	{
+		List<Map.Entry<String, byte[]>> evicted = new ArrayList<Map.Entry<String, byte[]>>();
+		synchronized (this)
+		{
+			byte[] old = entries.put(key, png);
+			bytes += png.length - (old == null ? 0 : old.length);
+			Iterator<Map.Entry<String, byte[]>> eldest = entries.entrySet().iterator();
+			while( bytes > maxBytes && eldest.hasNext() )
+			{
+				Map.Entry<String, byte[]> entry = eldest.next();
+				bytes -= entry.getValue().length;
+				evicted.add(entry);
+				eldest.remove();
+			}
+		}
+		
+		// Do the disk writes outside the lock so other requests aren't held up
+		if( spillDir == null ) return;
+		for( Map.Entry<String, byte[]> entry : evicted )
+		{
+			File spilled = new File(spillDir, entry.getKey() + ".png");
+			if( spilled.isFile() ) continue;
+			File temp = new File(spillDir, entry.getKey() + ".tmp");
+			FileOutputStream out = new FileOutputStream(temp);
+			try
+			{
+				out.write(entry.getValue());
+			}
+			finally
+			{
+				out.close();
+			}
+			if( !temp.renameTo(spilled) )
+			{
+				temp.delete();
+				continue;
+			}
+			synchronized (spillLock)
+			{
+				spillBytes += entry.getValue().length;
+			}
+		}
+		trimSpill();
+	}
+	
+	// Delete the least recently used spilled PNGs until the directory is back within budget
+	private void trimSpill()
+	{
+		synchronized (spillLock)
+		{
+			if( spillBytes <= maxSpillBytes ) return;
+			File[] files = listFiles(".png");
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			for( int i = 0; i < files.length && spillBytes > maxSpillBytes; i++ )
+			{
+				long length = files[i].length();
+				if( files[i].delete() ) spillBytes -= length;
+			}
+			if( spillBytes < 0 ) spillBytes = 0;
+		}
+	}
+	
+	private File[] listFiles(final String suffix)
+	{
+		File[] files = spillDir.listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String name)
+			{
+				return name.endsWith(suffix);
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+	
+	static byte[] readFile(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			return in.readAllBytes();
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,407 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP service that renders saved drawings to PNG previews for other tools.
+ * POST /render?width=320&height=400   body: a drawing as written by the Save menu   ->  image/png
+ * GET  /stats                                                                       ->  text/plain
+ * Results are cached by a hash of the drawing plus the size, and concurrent requests for the same
+ * result wait on a single render rather than each doing their own.
+ */
+
+public class RenderService {
+	private static final int MAX_SIZE = 2048;							// Largest width or height we'll render
+	
+	private final RenderCache cache;
+	private final ConcurrentHashMap<String, CompletableFuture<byte[]>> rendering = new ConcurrentHashMap<String, CompletableFuture<byte[]>>();
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();					// Served straight from the cache
+	private final AtomicLong coalesced = new AtomicLong();				// Waited on someone else's render
+	private final AtomicLong renders = new AtomicLong();
+	// Request bodies (up to Drawing.MAX_BYTES) and renders (up to MAX_SIZE squared) are both big, so only
+	// let as many requests hold them at once as there are processors, however many threads are serving
+	private final Semaphore slots = new Semaphore(Runtime.getRuntime().availableProcessors());
+	// Brush engines keep their layer and tinted stamps between renders. There's never more of them
+	// than renders running at once, which the slots above keep down
+	private final ConcurrentLinkedQueue<BrushEngine> brushes = new ConcurrentLinkedQueue<BrushEngine>();
+	private HttpServer server;
+	private ExecutorService executor;
+	
+	public RenderService(RenderCache cache)
+	{
+		this.cache = cache;
+	}
+	
+	// Port 0 picks a free port, see getPort()
+	public void start(int port) throws IOException
+	{
+		executor = newExecutor();
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+		server.createContext("/render", new RenderHandler());
+		server.createContext("/stats", new StatsHandler());
+		server.setExecutor(executor);
+		server.start();
+	}
+	
+	public void stop()
+	{
+		server.stop(0);
+		executor.shutdown();
+	}
+	
+	public int getPort()
+	{
+		return server.getAddress().getPort();
+	}
+	
+	public String getStats()
+	{
+		long total = requests.get();
+		long cached = hits.get() + coalesced.get();
+		return "requests=" + total + " hits=" + hits.get() + " coalesced=" + coalesced.get() + " renders=" + renders.get()
+			+ " hit_rate=" + (total == 0 ? 0 : 100 * cached / total) + "%";
+	}
+	
+	public byte[] render(byte[] document, int width, int height) throws IOException, ClassNotFoundException
+	{
+		requests.incrementAndGet();
+		String key = hash(document) + "-" + width + "x" + height;
+		byte[] png = cache.get(key);
+		if( png != null )
+		{
+			hits.incrementAndGet();
+			return png;
+		}
+		
+		CompletableFuture<byte[]> mine = new CompletableFuture<byte[]>();
+		CompletableFuture<byte[]> theirs = rendering.putIfAbsent(key, mine);
+		if( theirs != null )
+		{
+			// Only counts once the shared render has actually succeeded
+			png = await(theirs);
+			coalesced.incrementAndGet();
+			return png;
+		}
+		
+		try
+		{
+			// Someone may have finished this between our cache check and now
+			png = cache.get(key);
+			if( png != null )
+			{
+				hits.incrementAndGet();
+			}
+			else
+			{
+				renders.incrementAndGet();
+				BrushEngine brush = brushes.poll();
+				if( brush == null ) brush = new BrushEngine();
+				try
+				{
+					png = renderPng(Drawing.read(new ByteArrayInputStream(document)), brush, width, height);
+				}
+				finally
+				{
+					brushes.offer(brush);
+				}
+				cache.put(key, png);
+			}
+			mine.complete(png);
+			return png;
+		}
+		catch (Throwable e)
+		{
+			// Errors too, or anyone waiting on this render would wait forever
+			mine.completeExceptionally(e);
+			throw e;
+		}
+		finally
+		{
+			rendering.remove(key, mine);
+		}
+	}
+	
+	// Draw at canvas size, then scale down (or up) to what was asked for
+	public static byte[] renderPng(Drawing drawing, BrushEngine brush, int width, int height) throws IOException
+	{
+		BufferedImage full = new BufferedImage(Drawing.WIDTH, Drawing.HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Graphics2D gfx = full.createGraphics();
+		gfx.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		gfx.setColor(Color.white);
+		gfx.fillRect(0, 0, Drawing.WIDTH, Drawing.HEIGHT);
+		gfx.setColor(Color.black);
+		drawing.draw(gfx, brush, Drawing.WIDTH, Drawing.HEIGHT);
+		gfx.dispose();
+		
+		BufferedImage scaled = full;
+		if( width != Drawing.WIDTH || height != Drawing.HEIGHT )
+		{
+			scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			gfx = scaled.createGraphics();
+			gfx.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			gfx.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+			gfx.drawImage(full, 0, 0, width, height, null);
+			gfx.dispose();
+		}
+		
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(scaled, "png", out);
+		return out.toByteArray();
+	}
+	
+	private static byte[] await(Future<byte[]> future) throws IOException, ClassNotFoundException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for render");
+		}
+		catch (ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if( cause instanceof IOException ) throw (IOException)cause;
+			if( cause instanceof ClassNotFoundException ) throw (ClassNotFoundException)cause;
+			if( cause instanceof RuntimeException ) throw (RuntimeException)cause;
+			throw new IOException("Shared render failed: " + cause, cause);
+		}
+	}
+	
+	private static String hash(byte[] document)
+	{
+		try
+		{
+			StringBuilder hex = new StringBuilder();
+			for( byte b : MessageDigest.getInstance("SHA-256").digest(document) )
+			{
+				hex.append(String.format("%02x", b));
+			}
+			return hex.toString();
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException("SHA-256 is always available", e);
+		}
+	}
+	
+	// One virtual thread per request where the JDK has them (21+), otherwise an ordinary thread pool
+	static ExecutorService newExecutor()
+	{
+		try
+		{
+			return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (Exception e)
+		{
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	private static int queryInt(URI uri, String name, int defaultValue)
+	{
+		String query = uri.getRawQuery();
+		if( query == null ) return defaultValue;
+		for( String param : query.split("&") )
+		{
+			if( param.startsWith(name + "=") ) return Integer.parseInt(param.substring(name.length() + 1));
+		}
+		return defaultValue;
+	}
+	
+	private static void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException
+	{
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+	
+	class RenderHandler implements HttpHandler
+	{
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			try
+			{
+				if( !exchange.getRequestMethod().equals("POST") )
+				{
+					respond(exchange, 405, "text/plain", "POST a drawing to render it\n".getBytes("UTF-8"));
+					return;
+				}
+				int width = queryInt(exchange.getRequestURI(), "width", Drawing.WIDTH);
+				int height = queryInt(exchange.getRequestURI(), "height", Drawing.HEIGHT);
+				if( width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE )
+				{
+					respond(exchange, 400, "text/plain", ("width and height must be 1-" + MAX_SIZE + "\n").getBytes("UTF-8"));
+					return;
+				}
+				byte[] png;
+				slots.acquire();
+				try
+				{
+					byte[] document = exchange.getRequestBody().readNBytes(Drawing.MAX_BYTES + 1);
+					if( document.length > Drawing.MAX_BYTES )
+					{
+						respond(exchange, 413, "text/plain", ("Drawings can be at most " + Drawing.MAX_BYTES + " bytes\n").getBytes("UTF-8"));
+						return;
+					}
+					png = render(document, width, height);
+				}
+				finally
+				{
+					slots.release();
+				}
+				respond(exchange, 200, "image/png", png);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				respond(exchange, 503, "text/plain", "Shutting down\n".getBytes("UTF-8"));
+			}
+			catch (NumberFormatException e)
+			{
+				respond(exchange, 400, "text/plain", ("Bad number: " + e.getMessage() + "\n").getBytes("UTF-8"));
+			}
+			catch (ObjectStreamException e)
+			{
+				respond(exchange, 400, "text/plain", ("Not an NXDraw drawing: " + e.getMessage() + "\n").getBytes("UTF-8"));
+			}
+			catch (EOFException e)
+			{
+				respond(exchange, 400, "text/plain", "Not an NXDraw drawing: too short\n".getBytes("UTF-8"));
+			}
+			catch (ClassNotFoundException e)
+			{
+				respond(exchange, 400, "text/plain", ("Not an NXDraw drawing: " + e.getMessage() + "\n").getBytes("UTF-8"));
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+				respond(exchange, 500, "text/plain", ("Render failed: " + e.getMessage() + "\n").getBytes("UTF-8"));
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+				respond(exchange, 500, "text/plain", ("Render failed: " + e + "\n").getBytes("UTF-8"));
+			}
+			finally
+			{
+				exchange.close();
+			}
+		}
+	}
+	
+	class StatsHandler implements HttpHandler
+	{
+		public void handle(HttpExchange exchange) throws IOException
+		{
+			respond(exchange, 200, "text/plain", (getStats() + "\n").getBytes("UTF-8"));
+		}
+	}
+	
+	// java NXDraw --serve [port] [cache MB] [spill directory] [spill MB]
+	public static void serve(String[] args) throws IOException
+	{
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+		long cacheBytes = (args.length > 2 ? Long.parseLong(args[2]) : 64) * 1024 * 1024;
+		File spillDir = args.length > 3 ? new File(args[3]) : null;
+		long spillBytes = (args.length > 4 ? Long.parseLong(args[4]) : 256) * 1024 * 1024;
+		
+		RenderService service = new RenderService(new RenderCache(cacheBytes, spillDir, spillBytes));
+		service.start(port);
+		System.out.println("Rendering on http://localhost:" + service.getPort() + "/render");
+	}
+	
+	// java NXDraw --loadtest <drawing file> [requests] [concurrency] [distinct sizes]
+	// Starts a service on a free port, hammers it and reports requests per second and the cache hit rate.
+	// Each size is a separate cache entry, so more distinct sizes means more misses.
+	public static void loadTest(String[] args) throws Exception
+	{
+		if( args.length < 2 )
+		{
+			System.out.println("Usage: java NXDraw --loadtest <drawing file> [requests] [concurrency] [distinct sizes]");
+			return;
+		}
+		final byte[] document = RenderCache.readFile(new File(args[1]));
+		int total = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+		int concurrency = args.length > 3 ? Integer.parseInt(args[3]) : 32;
+		final int sizes = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+		
+		final RenderService service = new RenderService(new RenderCache(64 * 1024 * 1024, null, 0));
+		service.start(0);
+		ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		long start = System.nanoTime();
+		for( int i = 0; i < total; i++ )
+		{
+			final int width = 100 + 10 * (i % sizes);
+			results.add(clients.submit(new Callable<Integer>()
+			{
+				public Integer call() throws IOException
+				{
+					return post(service.getPort(), document, width, width * Drawing.HEIGHT / Drawing.WIDTH);
+				}
+			}));
+		}
+		int failures = 0;
+		for( Future<Integer> result : results )
+		{
+			if( result.get() != 200 ) failures++;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		clients.shutdown();
+		clients.awaitTermination(10, TimeUnit.SECONDS);
+		service.stop();
+		
+		System.out.printf("%d requests (%d failed) in %.2fs: %.0f requests/s%n", total, failures, seconds, total / seconds);
+		System.out.println(service.getStats());
+	}
+	
+	private static int post(int port, byte[] document, int width, int height) throws IOException
+	{
+		URL url = new URL("http://localhost:" + port + "/render?width=" + width + "&height=" + height);
+		HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+		connection.setRequestMethod("POST");
+		connection.setDoOutput(true);
+		connection.setFixedLengthStreamingMode(document.length);
+		OutputStream out = connection.getOutputStream();
+		out.write(document);
+		out.close();
+		int status = connection.getResponseCode();
+		InputStream in = status == 200 ? connection.getInputStream() : connection.getErrorStream();
+		if( in != null )
+		{
+			in.readAllBytes();
+			in.close();
+		}
+		return status;
+	}
+}
@@ -0,0 +1,19 @@
+/**
+ * Plain loop version, used when the Vector API isn't available
+ */
+
+public class ScalarPointTransformer implements PointTransformer {
+	public void transform(float[] xs, float[] ys, int n, double[] matrix)
+	{
+		float m00 = (float)matrix[0], m10 = (float)matrix[1];
+		float m01 = (float)matrix[2], m11 = (float)matrix[3];
+		float m02 = (float)matrix[4], m12 = (float)matrix[5];
+		for ( int i = 0; i < n; i++ )
+		{
+			float x = xs[i];
+			float y = ys[i];
+			xs[i] = m00 * x + m01 * y + m02;
+			ys[i] = m10 * x + m11 * y + m12;
+		}
+	}
+}
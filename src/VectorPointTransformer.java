@@ -0,0 +1,36 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of ScalarPointTransformer using the incubating Vector API.
+ * NXDraw only picks this up when it's compiled and run with --add-modules jdk.incubator.vector
+ */
+
+public class VectorPointTransformer implements PointTransformer {
+	private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+	
+	public void transform(float[] xs, float[] ys, int n, double[] matrix)
+	{
+		float m00 = (float)matrix[0], m10 = (float)matrix[1];
+		float m01 = (float)matrix[2], m11 = (float)matrix[3];
+		float m02 = (float)matrix[4], m12 = (float)matrix[5];
+		
+		int i = 0;
+		for ( int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length() )
+		{
+			FloatVector x = FloatVector.fromArray(SPECIES, xs, i);
+			FloatVector y = FloatVector.fromArray(SPECIES, ys, i);
+			x.mul(m00).add(y.mul(m01)).add(m02).intoArray(xs, i);
+			x.mul(m10).add(y.mul(m11)).add(m12).intoArray(ys, i);
+		}
+		
+		// Whatever's left over
+		for ( ; i < n; i++ )
+		{
+			float x = xs[i];
+			float y = ys[i];
+			xs[i] = m00 * x + m01 * y + m02;
+			ys[i] = m10 * x + m11 * y + m12;
+		}
+	}
+}